@@ -0,0 +1,182 @@
+package com.sml.flutter_image_cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoding helpers shared by the cropper: bounds-only reads, the EXIF embedded
+ * thumbnail used as an instant preview, and subsampled, orientation-corrected decodes.
+ */
+final class BitmapLoader {
+
+    // Largest edge we decode for cropping; keeps bitmaps well below the canvas draw limit
+    static final int MAX_DECODE_SIZE = 4096;
+
+    // Thumbnails whose aspect ratio is further off than this are letterboxed and not usable
+    private static final float THUMBNAIL_ASPECT_TOLERANCE = 0.02f;
+
+    private BitmapLoader() {
+    }
+
+    static Uri toUri(String imagePath) {
+        if (imagePath.startsWith("content://")) {
+            // Already a content URI
+            return Uri.parse(imagePath);
+        }
+        // File path
+        return Uri.fromFile(new File(imagePath));
+    }
+
+    static BitmapFactory.Options decodeBounds(Context context, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = openStream(context, uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Failed to read image bounds");
+        }
+        return options;
+    }
+
+    /**
+     * Returns the EXIF metadata of the image, or null when it cannot be read. Content URIs
+     * are only supported from Android 7.0, where ExifInterface accepts an InputStream.
+     */
+    static ExifInterface readExif(Context context, Uri uri) {
+        try {
+            if ("file".equals(uri.getScheme())) {
+                return new ExifInterface(uri.getPath());
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                try (InputStream in = openStream(context, uri)) {
+                    return new ExifInterface(in);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    static int getOrientation(ExifInterface exif) {
+        if (exif == null) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
+    }
+
+    /**
+     * Extracts the embedded EXIF thumbnail and rotates it like the full image. Returns null
+     * when there is no thumbnail or when its aspect ratio does not match the full image, since
+     * crop corners picked on a letterboxed thumbnail would not map back onto the photo.
+     */
+    static Bitmap loadExifThumbnail(ExifInterface exif, int imageWidth, int imageHeight) {
+        if (exif == null || !exif.hasThumbnail()) {
+            return null;
+        }
+        byte[] data = exif.getThumbnail();
+        if (data == null) {
+            return null;
+        }
+        Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length);
+        if (thumbnail == null) {
+            return null;
+        }
+
+        // Both sizes are still in sensor orientation here, so they can be compared directly
+        float imageAspect = (float) imageWidth / imageHeight;
+        float thumbnailAspect = (float) thumbnail.getWidth() / thumbnail.getHeight();
+        if (Math.abs(imageAspect - thumbnailAspect) / imageAspect > THUMBNAIL_ASPECT_TOLERANCE) {
+            thumbnail.recycle();
+            return null;
+        }
+
+        return applyOrientation(thumbnail, getOrientation(exif));
+    }
+
+    static int computeSampleSize(int width, int height, int maxSize) {
+        int sampleSize = 1;
+        while (width / sampleSize > maxSize || height / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    static Bitmap decodeSampled(Context context, Uri uri, int sampleSize, Bitmap.Config config, int orientation)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        Bitmap bitmap;
+        try (InputStream in = openStream(context, uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Failed to decode bitmap");
+        }
+        return applyOrientation(bitmap, orientation);
+    }
+
+    // True for the orientations that turn the image on its side
+    static boolean swapsDimensions(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap; // No rotation needed
+        }
+
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+
+    private static InputStream openStream(Context context, Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        return in;
+    }
+}
@@ -6,6 +6,7 @@ import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.graphics.Point;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Bundle;
@@ -19,6 +20,7 @@ import android.widget.ImageView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
@@ -34,7 +36,6 @@ import androidx.lifecycle.LifecycleOwner;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
@@ -42,6 +43,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import me.pqpo.smartcropperlib.SmartCropper;
+
 public class CameraActivity extends AppCompatActivity {
 
     private static final int REQUEST_CAMERA_PERMISSION = 1001;
@@ -61,6 +64,10 @@ public class CameraActivity extends AppCompatActivity {
 
     private boolean isFlashOn = false;
 
+    // Optional quality limits; a capture outside them prompts for a retake before cropping
+    private double minSharpness = 0;
+    private double maxGlareFraction = 1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -76,6 +83,9 @@ public class CameraActivity extends AppCompatActivity {
         flashButton = findViewById(R.id.flash_button);
         closeButton = findViewById(R.id.close_button);
 
+        minSharpness = getIntent().getDoubleExtra("minSharpness", 0);
+        maxGlareFraction = getIntent().getDoubleExtra("maxGlareFraction", 1);
+
         // Always use back camera
         cameraSelector = new CameraSelector.Builder()
                 .requireLensFacing(CameraSelector.LENS_FACING_BACK)
@@ -213,6 +223,9 @@ public class CameraActivity extends AppCompatActivity {
             return;
         }
 
+        // One capture at a time until it is cropped, retaken or has failed
+        captureButton.setEnabled(false);
+
         // Create output options object
         ImageCapture.OutputFileOptions outputFileOptions = new ImageCapture.OutputFileOptions.Builder(photoFile).build();
 
@@ -220,15 +233,29 @@ public class CameraActivity extends AppCompatActivity {
         imageCapture.takePicture(outputFileOptions, executor, new ImageCapture.OnImageSavedCallback() {
             @Override
             public void onImageSaved(@NonNull ImageCapture.OutputFileResults outputFileResults) {
-                runOnUiThread(() -> {
-                    try {
-                        // Fix image orientation
-                        String correctedImagePath = fixImageOrientation(photoFile.getAbsolutePath());
+                // Still on the capture executor, so the decode, rotate and write stay off the UI thread
+                String capturedImagePath = photoFile.getAbsolutePath();
+                String correctedImagePath;
+                try {
+                    // Fix image orientation
+                    correctedImagePath = fixImageOrientation(capturedImagePath);
+                } catch (IOException | OutOfMemoryError e) {
+                    runOnUiThread(() -> {
+                        captureButton.setEnabled(true);
+                        Toast.makeText(CameraActivity.this, "Error processing image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    });
+                    return;
+                }
 
-                        // Send corrected image to cropper
+                runOnUiThread(() -> {
+                    if (isFinishing() || isDestroyed()) {
+                        return;
+                    }
+                    // Send corrected image to cropper, checking its quality first if asked to
+                    if (minSharpness > 0 || maxGlareFraction < 1) {
+                        checkQualityAndCrop(capturedImagePath, correctedImagePath);
+                    } else {
                         launchCropper(correctedImagePath);
-                    } catch (IOException e) {
-                        Toast.makeText(CameraActivity.this, "Error processing image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                     }
                 });
             }
@@ -236,6 +263,7 @@ public class CameraActivity extends AppCompatActivity {
             @Override
             public void onError(@NonNull ImageCaptureException exception) {
                 runOnUiThread(() -> {
+                    captureButton.setEnabled(true);
                     Toast.makeText(CameraActivity.this, "Error capturing image: " + exception.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
@@ -252,8 +280,18 @@ public class CameraActivity extends AppCompatActivity {
             return imagePath;
         }
 
-        // Load the bitmap
-        Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
+        // Load the bitmap at full size unless it does not fit the memory that is available
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        MemoryGovernor.DecodePlan plan = MemoryGovernor.get(this).planDecode(options.outWidth, options.outHeight);
+        options.inSampleSize = plan.sampleSize;
+        options.inPreferredConfig = plan.config;
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+        if (bitmap == null) {
+            throw new IOException("Failed to decode bitmap");
+        }
 
         // Create a matrix for rotation
         Matrix matrix = new Matrix();
@@ -286,15 +324,17 @@ public class CameraActivity extends AppCompatActivity {
         File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
         File rotatedFile = new File(storageDir, rotatedFileName);
 
-        // Save the rotated bitmap
-        FileOutputStream out = new FileOutputStream(rotatedFile);
-        rotatedBitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-        out.flush();
-        out.close();
-
-        // Recycle the bitmaps
-        bitmap.recycle();
-        rotatedBitmap.recycle();
+        // Save the rotated bitmap; the writer only publishes the file once it is complete
+        OutputWriter writer = new OutputWriter(
+                getIntent().getIntExtra("writeBufferSize", OutputWriter.DEFAULT_BUFFER_SIZE),
+                getIntent().getBooleanExtra("fsync", false));
+        try {
+            writer.write(rotatedBitmap, Bitmap.CompressFormat.JPEG, 100, rotatedFile);
+        } finally {
+            // Recycle the bitmaps
+            bitmap.recycle();
+            rotatedBitmap.recycle();
+        }
 
         return rotatedFile.getAbsolutePath();
     }
@@ -311,9 +351,83 @@ public class CameraActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Scores the page the cropper will propose, not the whole frame: the edges are detected
+     * and the quad cropped out of a subsampled decode, then scored like the final crop, so the
+     * limits mean the same thing as the quality reported with the result.
+     */
+    private void checkQualityAndCrop(String capturedImagePath, String imagePath) {
+        executor.execute(() -> {
+            CaptureQuality quality = null;
+            try {
+                // A subsampled decode is enough; the crop is scored at ANALYSIS_SIZE anyway
+                Uri imageUri = Uri.fromFile(new File(imagePath));
+                BitmapFactory.Options bounds = BitmapLoader.decodeBounds(this, imageUri);
+                int sampleSize = BitmapLoader.computeSampleSize(bounds.outWidth, bounds.outHeight,
+                        CaptureQuality.ANALYSIS_SIZE * 2);
+                Bitmap sample = BitmapLoader.decodeSampled(this, imageUri, sampleSize,
+                        Bitmap.Config.ARGB_8888, ExifInterface.ORIENTATION_UNDEFINED);
+
+                CropperActivity.ensureDetector(this);
+                Point[] quad = SmartCropper.scan(sample);
+                Bitmap crop = quad != null ? SmartCropper.crop(sample, quad) : null;
+                if (crop != null) {
+                    quality = CaptureQuality.analyze(crop, quad, sample.getWidth(), sample.getHeight());
+                    crop.recycle();
+                } else {
+                    // No page found, so the cropper will start from the whole frame too
+                    quality = CaptureQuality.analyze(sample, null, 0, 0);
+                }
+                sample.recycle();
+            } catch (Exception | OutOfMemoryError e) {
+                e.printStackTrace();
+            }
+
+            CaptureQuality result = quality;
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                // If scoring failed we do not block the user
+                if (result == null || result.meets(minSharpness, maxGlareFraction)) {
+                    launchCropper(imagePath);
+                } else {
+                    showRetakePrompt(capturedImagePath, imagePath, result);
+                }
+            });
+        });
+    }
+
+    private void showRetakePrompt(String capturedImagePath, String imagePath, CaptureQuality quality) {
+        String message = quality.sharpness < minSharpness
+                ? "The photo looks blurry. Hold the phone steady and retake it?"
+                : "The photo has strong glare. Change the angle or lighting and retake it?";
+
+        new AlertDialog.Builder(this)
+                .setTitle("Retake photo?")
+                .setMessage(message)
+                .setCancelable(false)
+                .setPositiveButton("Retake", (dialog, which) -> {
+                    // Drop both the capture and its orientation-corrected copy
+                    new File(imagePath).delete();
+                    if (!capturedImagePath.equals(imagePath)) {
+                        new File(capturedImagePath).delete();
+                    }
+                    captureButton.setEnabled(true);
+                })
+                .setNegativeButton("Use anyway", (dialog, which) -> launchCropper(imagePath))
+                .show();
+    }
+
     private void launchCropper(String imagePath) {
         Intent intent = new Intent(this, CropperActivity.class);
         intent.putExtra("imagePath", imagePath);
+        intent.putExtra("duplicateThreshold",
+                getIntent().getIntExtra("duplicateThreshold", DuplicateIndex.DEFAULT_THRESHOLD));
+        intent.putExtra("dropDuplicates", getIntent().getBooleanExtra("dropDuplicates", false));
+        intent.putExtra("writeBufferSize",
+                getIntent().getIntExtra("writeBufferSize", OutputWriter.DEFAULT_BUFFER_SIZE));
+        intent.putExtra("fsync", getIntent().getBooleanExtra("fsync", false));
         startActivityForResult(intent, CROP_IMAGE_REQUEST_CODE);
     }
 
@@ -321,12 +435,11 @@ public class CameraActivity extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == CROP_IMAGE_REQUEST_CODE) {
+            captureButton.setEnabled(true);
             if (resultCode == RESULT_OK && data != null) {
-                String croppedImagePath = data.getStringExtra("imagePath");
-
-                // Return the cropped image path to Flutter
+                // Return the cropped image path and its details to Flutter
                 Intent resultIntent = new Intent();
-                resultIntent.putExtra("imagePath", croppedImagePath);
+                resultIntent.putExtras(data);
                 setResult(RESULT_OK, resultIntent);
                 finish();
             } else if (resultCode == RESULT_CANCELED) {
@@ -336,6 +449,18 @@ public class CameraActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryGovernor.get(this).onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryGovernor.get(this).onLowMemory();
+    }
+
     @Override
     public void onBackPressed() {
         setResult(RESULT_CANCELED);
@@ -0,0 +1,197 @@
+package com.sml.flutter_image_cropper;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+/**
+ * Cheap capture-quality scores computed on a downsampled copy of an image: Laplacian-variance
+ * sharpness, the fraction of blown-out (glare) pixels and, when a crop quad is known, its skew
+ * and how much of the frame it covers.
+ */
+final class CaptureQuality {
+
+    // Longest edge of the copy the scores are computed on
+    static final int ANALYSIS_SIZE = 512;
+
+    // Luma at or above this value counts as a saturated, glare pixel
+    private static final int GLARE_LUMA = 250;
+
+    final double sharpness;
+    final double glareFraction;
+    final double skewDegrees;
+    final double areaRatio;
+    final long analysisMs;
+
+    private CaptureQuality(double sharpness, double glareFraction, double skewDegrees, double areaRatio, long analysisMs) {
+        this.sharpness = sharpness;
+        this.glareFraction = glareFraction;
+        this.skewDegrees = skewDegrees;
+        this.areaRatio = areaRatio;
+        this.analysisMs = analysisMs;
+    }
+
+    /**
+     * Scores {@code image}. {@code quad} is optional and given in a {@code quadSpaceWidth} x
+     * {@code quadSpaceHeight} coordinate space, typically the full image the crop was taken from.
+     */
+    static CaptureQuality analyze(Bitmap image, Point[] quad, int quadSpaceWidth, int quadSpaceHeight) {
+        long start = SystemClock.elapsedRealtime();
+
+        // Halve in exact 2x2 steps first: a bilinear scale by one half averages four pixels, so
+        // unlike a single large bilinear step it does not alias depending on the input size
+        Bitmap sample = image;
+        while (Math.max(sample.getWidth(), sample.getHeight()) > ANALYSIS_SIZE * 2) {
+            Bitmap half = Bitmap.createScaledBitmap(sample,
+                    Math.max(1, sample.getWidth() / 2), Math.max(1, sample.getHeight() / 2), true);
+            if (sample != image) {
+                sample.recycle();
+            }
+            sample = half;
+        }
+
+        int sampleWidth = sample.getWidth();
+        int sampleHeight = sample.getHeight();
+        int[] pixels = new int[sampleWidth * sampleHeight];
+        sample.getPixels(pixels, 0, sampleWidth, 0, 0, sampleWidth, sampleHeight);
+        if (sample != image) {
+            sample.recycle();
+        }
+
+        int[] sampleLuma = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            sampleLuma[i] = (((p >> 16) & 0xff) * 77 + ((p >> 8) & 0xff) * 150 + (p & 0xff) * 29) >> 8;
+        }
+
+        // The remaining factor is below two; box-average it down to the analysis size
+        int width = sampleWidth;
+        int height = sampleHeight;
+        int longest = Math.max(sampleWidth, sampleHeight);
+        if (longest > ANALYSIS_SIZE) {
+            width = Math.max(1, Math.round((float) sampleWidth * ANALYSIS_SIZE / longest));
+            height = Math.max(1, Math.round((float) sampleHeight * ANALYSIS_SIZE / longest));
+        }
+        int[] luma = boxResize(sampleLuma, sampleWidth, sampleHeight, width, height);
+
+        // Count saturated pixels on the same copy the sharpness is measured on
+        int glarePixels = 0;
+        for (int y : luma) {
+            if (y >= GLARE_LUMA) {
+                glarePixels++;
+            }
+        }
+
+        double sharpness = laplacianVariance(luma, width, height);
+        double glareFraction = (double) glarePixels / luma.length;
+
+        double skewDegrees = Double.NaN;
+        double areaRatio = Double.NaN;
+        if (quad != null && quad.length == 4 && quadSpaceWidth > 0 && quadSpaceHeight > 0) {
+            skewDegrees = maxCornerSkew(quad);
+            areaRatio = polygonArea(quad) / ((double) quadSpaceWidth * quadSpaceHeight);
+        }
+
+        return new CaptureQuality(sharpness, glareFraction, skewDegrees, areaRatio,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Returns false when the image is blurrier or more glared than the given limits.
+     * A limit of 0 for sharpness or 1 for glare disables that check.
+     */
+    boolean meets(double minSharpness, double maxGlareFraction) {
+        return sharpness >= minSharpness && glareFraction <= maxGlareFraction;
+    }
+
+    HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("sharpness", sharpness);
+        map.put("glareFraction", glareFraction);
+        if (!Double.isNaN(skewDegrees)) {
+            map.put("skewDegrees", skewDegrees);
+            map.put("areaRatio", areaRatio);
+        }
+        map.put("analysisMs", analysisMs);
+        return map;
+    }
+
+    // Averages each destination pixel over the source pixels it covers
+    private static int[] boxResize(int[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (srcWidth == dstWidth && srcHeight == dstHeight) {
+            return src;
+        }
+        int[] dst = new int[dstWidth * dstHeight];
+        for (int y = 0; y < dstHeight; y++) {
+            int y0 = y * srcHeight / dstHeight;
+            int y1 = Math.max(y0 + 1, (y + 1) * srcHeight / dstHeight);
+            for (int x = 0; x < dstWidth; x++) {
+                int x0 = x * srcWidth / dstWidth;
+                int x1 = Math.max(x0 + 1, (x + 1) * srcWidth / dstWidth);
+                int sum = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int row = sy * srcWidth;
+                    for (int sx = x0; sx < x1; sx++) {
+                        sum += src[row + sx];
+                    }
+                }
+                dst[y * dstWidth + x] = sum / ((y1 - y0) * (x1 - x0));
+            }
+        }
+        return dst;
+    }
+
+    private static double laplacianVariance(int[] luma, int width, int height) {
+        if (width < 3 || height < 3) {
+            return 0;
+        }
+        double sum = 0;
+        double sumSquares = 0;
+        int count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int laplacian = luma[i - 1] + luma[i + 1] + luma[i - width] + luma[i + width] - 4 * luma[i];
+                sum += laplacian;
+                sumSquares += (double) laplacian * laplacian;
+                count++;
+            }
+        }
+        double mean = sum / count;
+        return sumSquares / count - mean * mean;
+    }
+
+    // Largest deviation of a corner angle from 90 degrees
+    private static double maxCornerSkew(Point[] quad) {
+        double maxSkew = 0;
+        for (int i = 0; i < quad.length; i++) {
+            Point prev = quad[(i + quad.length - 1) % quad.length];
+            Point curr = quad[i];
+            Point next = quad[(i + 1) % quad.length];
+            double ax = prev.x - curr.x;
+            double ay = prev.y - curr.y;
+            double bx = next.x - curr.x;
+            double by = next.y - curr.y;
+            double lengths = Math.hypot(ax, ay) * Math.hypot(bx, by);
+            if (lengths == 0) {
+                continue;
+            }
+            double cos = Math.max(-1, Math.min(1, (ax * bx + ay * by) / lengths));
+            maxSkew = Math.max(maxSkew, Math.abs(Math.toDegrees(Math.acos(cos)) - 90));
+        }
+        return maxSkew;
+    }
+
+    private static double polygonArea(Point[] points) {
+        double area = 0;
+        for (int i = 0; i < points.length; i++) {
+            Point a = points[i];
+            Point b = points[(i + 1) % points.length];
+            area += (double) a.x * b.y - (double) b.x * a.y;
+        }
+        return Math.abs(area) / 2;
+    }
+}
@@ -1,20 +1,29 @@
 package com.sml.flutter_image_cropper;
 
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
-import android.net.Uri;
+import android.graphics.Point;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.Environment;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+import androidx.lifecycle.ViewModelProvider;
 
-import java.io.IOException;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
 
 import me.pqpo.smartcropperlib.SmartCropper;
 import me.pqpo.smartcropperlib.view.CropImageView;
@@ -25,15 +34,16 @@ public class CropperActivity extends AppCompatActivity {
     private ImageView ivPreview;
     private Button btnCrop, btnDone, btnReset, btnRotate, btnCancel;
     private LinearLayout preCropActions, postCropActions;
-    private Bitmap originalBitmap;
-    private Bitmap croppedBitmap;
-    private int rotationAngle = 0;
-    private boolean isCropped = false;
+    private CropperViewModel viewModel;
+    private Bitmap displayedBitmap;
+
+    // The edge detector is process-wide, so it only has to be built once
+    private static boolean detectorBuilt = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        SmartCropper.buildImageDetector(this);
+        ensureDetector(this);
 
         // Set the activity to fullscreen
         setFullScreenMode();
@@ -69,37 +79,64 @@ public class CropperActivity extends AppCompatActivity {
             return;
         }
 
-        // Load the image from path - handle both file paths and content URIs
-        try {
-            Uri imageUri;
-            if (imagePath.startsWith("content://")) {
-                // Already a content URI
-                imageUri = Uri.parse(imagePath);
-            } else {
-                // File path
-                imageUri = Uri.fromFile(new java.io.File(imagePath));
+        // Bitmaps and edit state outlive configuration changes in the ViewModel
+        viewModel = new ViewModelProvider(this).get(CropperViewModel.class);
+        if (!viewModel.isLoadStarted()) {
+            // After process death the bitmaps are gone, but the edit state is in the bundle
+            if (savedInstanceState != null) {
+                viewModel.restoreState(savedInstanceState);
             }
-
-            originalBitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-            if (originalBitmap == null) {
-                throw new IOException("Failed to decode bitmap");
+            try {
+                // Loads the EXIF thumbnail right away and decodes the full image in the background
+                viewModel.load(this, imagePath);
+            } catch (Exception e) {
+                onImageLoadFailed(e);
+                return;
             }
-            ivCrop.setImageToCrop(originalBitmap);
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Failed to load image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            setResult(RESULT_CANCELED);
-            finish();
-            return;
         }
 
+        // Show what is already decoded: the full image after recreation, otherwise the thumbnail
+        Bitmap originalBitmap = viewModel.getOriginalBitmap();
+        if (originalBitmap != null) {
+            showImageToCrop(originalBitmap, viewModel.cropPoints);
+        } else if (viewModel.previewBitmap != null) {
+            showImageToCrop(viewModel.previewBitmap, viewModel.cropPoints);
+        }
+
+        // Cropping the thumbnail would produce a tiny image, so wait for the full decode
+        btnCrop.setEnabled(originalBitmap != null);
+
+        // Remember whether the user dragged a corner on the preview so we can carry it over.
+        // Taps and touches on the full image must not stop edge detection on the full decode.
+        ivCrop.setOnTouchListener((v, event) -> {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_MOVE:
+                    if (!viewModel.cornersAdjusted && displayedBitmap != null
+                            && displayedBitmap == viewModel.previewBitmap
+                            && !Arrays.equals(viewModel.cropPoints,
+                                    CropperViewModel.normalizePoints(ivCrop.getCropPoints(), displayedBitmap))) {
+                        viewModel.cornersAdjusted = true;
+                    }
+                    break;
+                case MotionEvent.ACTION_UP:
+                    // CropImageView handles the gesture itself; keep accessibility click events intact
+                    v.performClick();
+                    break;
+            }
+            return false;
+        });
+
+        viewModel.getFullImage().observe(this, this::onFullImageDecoded);
+        viewModel.getLoadError().observe(this, this::onImageLoadFailed);
+        viewModel.getSaveResult().observe(this, this::onSaved);
+
         // Initially hide the Done button in pre-crop mode
         btnDone.setVisibility(View.GONE);
 
         // Crop Image
         btnCrop.setOnClickListener(v -> {
-            croppedBitmap = ivCrop.crop();
-            if (croppedBitmap != null) {
+            viewModel.croppedBitmap = ivCrop.crop();
+            if (viewModel.croppedBitmap != null) {
                 // Switch to post-crop UI
                 switchToPostCropUI();
                 Toast.makeText(CropperActivity.this, "Image cropped", Toast.LENGTH_SHORT).show();
@@ -110,29 +147,17 @@ public class CropperActivity extends AppCompatActivity {
 
         // Rotate Image
         btnRotate.setOnClickListener(v -> {
-            if (croppedBitmap != null) {
-                rotationAngle = (rotationAngle + 90) % 360;
-                Matrix matrix = new Matrix();
-                matrix.postRotate(90);
-                croppedBitmap = Bitmap.createBitmap(croppedBitmap, 0, 0,
-                        croppedBitmap.getWidth(), croppedBitmap.getHeight(), matrix, true);
-                ivPreview.setImageBitmap(croppedBitmap);
+            if (viewModel.croppedBitmap != null) {
+                viewModel.rotationAngle = (viewModel.rotationAngle + 90) % 360;
+                viewModel.croppedBitmap = rotateBitmap(viewModel.croppedBitmap, 90);
+                ivPreview.setImageBitmap(viewModel.croppedBitmap);
             }
         });
 
-        // Done button - return the image path and finish
+        // Done button - return the image and its details and finish
         btnDone.setOnClickListener(v -> {
-            if (croppedBitmap != null) {
-                // Save the image and get its path
-                String resultPath = saveImageToGallery();
-
-                // Return the result to the calling activity
-                Intent resultIntent = new Intent();
-                resultIntent.putExtra("imagePath", resultPath);
-                setResult(RESULT_OK, resultIntent);
-
-                // Finish this activity
-                finish();
+            if (viewModel.croppedBitmap != null) {
+                finishWithResult();
             }
         });
 
@@ -146,6 +171,96 @@ public class CropperActivity extends AppCompatActivity {
             setResult(RESULT_CANCELED);
             finish();
         });
+
+        // Come back to the post-crop screen if that is where the user was
+        if (viewModel.isCropped && viewModel.croppedBitmap != null) {
+            switchToPostCropUI();
+        }
+        setSaving(viewModel.saving);
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (viewModel == null) {
+            return;
+        }
+        if (displayedBitmap != null) {
+            viewModel.cropPoints = CropperViewModel.normalizePoints(ivCrop.getCropPoints(), displayedBitmap);
+        }
+        viewModel.saveState(outState);
+    }
+
+    private void showImageToCrop(Bitmap bitmap, float[] normalizedPoints) {
+        Point[] points = CropperViewModel.denormalizePoints(normalizedPoints, bitmap);
+        if (points != null) {
+            // Reuse known corners instead of running edge detection again
+            ivCrop.setAutoScanEnable(false);
+            ivCrop.setImageToCrop(bitmap);
+            ivCrop.setAutoScanEnable(true);
+            ivCrop.setCropPoints(points);
+        } else {
+            ivCrop.setImageToCrop(bitmap);
+        }
+        displayedBitmap = bitmap;
+        viewModel.cropPoints = CropperViewModel.normalizePoints(ivCrop.getCropPoints(), bitmap);
+    }
+
+    private void onFullImageDecoded(Bitmap bitmap) {
+        if (bitmap == null || bitmap == displayedBitmap) {
+            return;
+        }
+
+        // Keep the corners the user already placed (or that were restored), otherwise detect them
+        float[] points = null;
+        if (viewModel.cornersAdjusted) {
+            points = displayedBitmap != null
+                    ? CropperViewModel.normalizePoints(ivCrop.getCropPoints(), displayedBitmap)
+                    : viewModel.cropPoints;
+        }
+        showImageToCrop(bitmap, points);
+        viewModel.previewBitmap = null;
+
+        btnCrop.setEnabled(true);
+
+        // After process death the cropped result has to be rebuilt from the saved corners
+        if (viewModel.isCropped && viewModel.croppedBitmap == null) {
+            Bitmap cropped = ivCrop.crop();
+            if (cropped != null) {
+                viewModel.croppedBitmap = rotateBitmap(cropped, viewModel.rotationAngle);
+                switchToPostCropUI();
+            } else {
+                viewModel.isCropped = false;
+                viewModel.rotationAngle = 0;
+            }
+        }
+    }
+
+    private void onImageLoadFailed(Throwable e) {
+        e.printStackTrace();
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        Toast.makeText(this, "Failed to load image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        setResult(RESULT_CANCELED);
+        finish();
+    }
+
+    private static Bitmap rotateBitmap(Bitmap bitmap, int degrees) {
+        if (degrees % 360 == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    // Also used by the camera's quality gate, which scans for edges before the cropper opens
+    static synchronized void ensureDetector(Context context) {
+        if (!detectorBuilt) {
+            SmartCropper.buildImageDetector(context.getApplicationContext());
+            detectorBuilt = true;
+        }
     }
 
     private void setFullScreenMode() {
@@ -163,7 +278,7 @@ public class CropperActivity extends AppCompatActivity {
         findViewById(R.id.preview_container).setVisibility(View.VISIBLE);
 
         // Set the preview image
-        ivPreview.setImageBitmap(croppedBitmap);
+        ivPreview.setImageBitmap(viewModel.croppedBitmap);
 
         // Hide pre-crop buttons and show post-crop buttons
         preCropActions.setVisibility(View.GONE);
@@ -176,7 +291,7 @@ public class CropperActivity extends AppCompatActivity {
         btnCancel.setText("Back");
 
         // Set flag
-        isCropped = true;
+        viewModel.isCropped = true;
     }
 
     private void switchToPreCropUI() {
@@ -185,8 +300,9 @@ public class CropperActivity extends AppCompatActivity {
         findViewById(R.id.preview_container).setVisibility(View.GONE);
 
         // Reset the cropper with the original image
+        Bitmap originalBitmap = viewModel.getOriginalBitmap();
         if (originalBitmap != null) {
-            ivCrop.setImageToCrop(originalBitmap);
+            showImageToCrop(originalBitmap, null);
         }
 
         // Show pre-crop buttons and hide post-crop buttons
@@ -200,66 +316,100 @@ public class CropperActivity extends AppCompatActivity {
         btnCancel.setText("Cancel");
 
         // Reset state
-        rotationAngle = 0;
-        isCropped = false;
+        viewModel.croppedBitmap = null;
+        viewModel.rotationAngle = 0;
+        viewModel.isCropped = false;
+        viewModel.cornersAdjusted = false;
     }
 
-    private String saveImageToGallery() {
-        // Implementation to save the image to gallery and return its path
-        if (croppedBitmap == null) {
-            return null;
+    private void finishWithResult() {
+        // Scoring, hashing and the encode run in the background; onSaved picks up the result
+        setSaving(true);
+        viewModel.save(ivCrop.getCropPoints(), displayedBitmap.getWidth(), displayedBitmap.getHeight(),
+                createOutputFile(),
+                new OutputWriter(
+                        getIntent().getIntExtra("writeBufferSize", OutputWriter.DEFAULT_BUFFER_SIZE),
+                        getIntent().getBooleanExtra("fsync", false)),
+                getIntent().getIntExtra("duplicateThreshold", DuplicateIndex.DEFAULT_THRESHOLD),
+                getIntent().getBooleanExtra("dropDuplicates", false));
+    }
+
+    private void onSaved(CropperViewModel.SaveResult saved) {
+        if (saved == null) {
+            return;
+        }
+        Toast.makeText(this, saved.message, Toast.LENGTH_SHORT).show();
+        if (saved.result == null) {
+            // Nothing usable was produced; let the user try again
+            viewModel.clearSaveResult();
+            setSaving(false);
+            return;
         }
 
-        String title = "CroppedImage_" + System.currentTimeMillis();
-        String description = "Image cropped by FlutterImageCropper";
+        HashMap<String, Object> result = saved.result;
+        String resultPath = (String) result.get("imagePath");
+        if (resultPath != null) {
+            result.put("uri", toContentUri(new File(resultPath)));
+        }
 
-        // Save the image and get its URI
-        String imagePath = null;
-        Uri imageUri = null;
+        // Return the result to the calling activity
+        Intent resultIntent = new Intent();
+        resultIntent.putExtra("imagePath", resultPath);
+        resultIntent.putExtra("result", result);
+        setResult(RESULT_OK, resultIntent);
+
+        // Finish this activity
+        finish();
+    }
 
+    // Keeps the crop from changing or the screen from closing while it is being written
+    private void setSaving(boolean saving) {
+        btnDone.setEnabled(!saving);
+        btnRotate.setEnabled(!saving);
+        btnReset.setEnabled(!saving);
+        btnCancel.setEnabled(!saving);
+    }
+
+    // Content URI through the plugin's FileProvider, which other apps can be granted access to
+    private String toContentUri(File file) {
         try {
-            // Insert the image into the MediaStore
-            imageUri = Uri.parse(MediaStore.Images.Media.insertImage(
-                    getContentResolver(),
-                    croppedBitmap,
-                    title,
-                    description));
-
-            if (imageUri != null) {
-                // Convert URI to file path
-                imagePath = getRealPathFromURI(imageUri);
-                Toast.makeText(this, "Image saved successfully", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Failed to save image", Toast.LENGTH_SHORT).show();
-            }
-        } catch (Exception e) {
+            return FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", file).toString();
+        } catch (IllegalArgumentException e) {
+            // The file is outside the provider's paths
             e.printStackTrace();
-            Toast.makeText(this, "Error saving image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return null;
         }
-
-        return imagePath;
     }
 
-    // Helper method to get file path from URI
-    private String getRealPathFromURI(Uri contentUri) {
-        String[] proj = {MediaStore.Images.Media.DATA};
-        android.database.Cursor cursor = getContentResolver().query(contentUri, proj, null, null, null);
-
-        if (cursor == null) {
-            return contentUri.getPath();
+    private File createOutputFile() {
+        // Write into app storage; the writer only publishes complete files
+        File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (storageDir == null) {
+            storageDir = getFilesDir();
         }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(System.currentTimeMillis());
+        return new File(storageDir, "CROP_" + timeStamp + ".jpg");
+    }
 
-        int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-        cursor.moveToFirst();
-        String result = cursor.getString(column_index);
-        cursor.close();
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryGovernor.get(this).onTrimMemory(level);
+    }
 
-        return result;
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryGovernor.get(this).onLowMemory();
     }
 
     @Override
     public void onBackPressed() {
-        if (isCropped) {
+        if (viewModel != null && viewModel.saving) {
+            // Let the write finish; the result closes the screen
+            return;
+        }
+        if (viewModel != null && viewModel.isCropped) {
             // If we're in post-crop mode, go back to pre-crop mode
             switchToPreCropUI();
         } else {
@@ -0,0 +1,325 @@
+package com.sml.flutter_image_cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Holds the decoded bitmaps and the edit state of {@link CropperActivity} so that rotation,
+ * resizes and theme changes reuse them instead of decoding and detecting edges again.
+ */
+public class CropperViewModel extends ViewModel {
+
+    private static final String KEY_CROP_POINTS = "cropper.cropPoints";
+    private static final String KEY_ROTATION = "cropper.rotationAngle";
+    private static final String KEY_CROPPED = "cropper.isCropped";
+
+    private static final int OUTPUT_QUALITY = 90;
+
+    private ExecutorService executor;
+    private int workerThreads = 1;
+    private final MutableLiveData<Bitmap> fullImage = new MutableLiveData<>();
+    private final MutableLiveData<Throwable> loadError = new MutableLiveData<>();
+    private final MutableLiveData<SaveResult> saveResult = new MutableLiveData<>();
+
+    private boolean loadStarted = false;
+
+    // Edit state, shared with the activity
+    Bitmap previewBitmap;
+    Bitmap croppedBitmap;
+    float[] cropPoints; // Crop corners as fractions of the displayed bitmap's size
+    int rotationAngle = 0;
+    boolean isCropped = false;
+    boolean cornersAdjusted = false;
+    boolean saving = false;
+
+    // Size of the source image once upright, the space the returned crop quad is expressed in
+    int sourceWidth;
+    int sourceHeight;
+
+    // Decode settings chosen by the memory governor, reported with the result
+    final HashMap<String, Object> metrics = new HashMap<>();
+
+    LiveData<Bitmap> getFullImage() {
+        return fullImage;
+    }
+
+    LiveData<Throwable> getLoadError() {
+        return loadError;
+    }
+
+    LiveData<SaveResult> getSaveResult() {
+        return saveResult;
+    }
+
+    /** The result map for the caller, or null if saving failed, and a message for the user. */
+    static final class SaveResult {
+        final HashMap<String, Object> result;
+        final String message;
+
+        SaveResult(HashMap<String, Object> result, String message) {
+            this.result = result;
+            this.message = message;
+        }
+    }
+
+    Bitmap getOriginalBitmap() {
+        return fullImage.getValue();
+    }
+
+    boolean isLoadStarted() {
+        return loadStarted;
+    }
+
+    /**
+     * Reads the image bounds and EXIF thumbnail synchronously, then decodes the full image on
+     * the background executor. Only the first call per ViewModel does any work.
+     */
+    void load(Context context, String imagePath) throws IOException {
+        if (loadStarted) {
+            return;
+        }
+        loadStarted = true;
+
+        Context appContext = context.getApplicationContext();
+        Uri imageUri = BitmapLoader.toUri(imagePath);
+        BitmapFactory.Options bounds = BitmapLoader.decodeBounds(appContext, imageUri);
+
+        // Reading EXIF only touches the file header, so the preview appears almost immediately
+        ExifInterface exif = BitmapLoader.readExif(appContext, imageUri);
+        int orientation = BitmapLoader.getOrientation(exif);
+        boolean swap = BitmapLoader.swapsDimensions(orientation);
+        sourceWidth = swap ? bounds.outHeight : bounds.outWidth;
+        sourceHeight = swap ? bounds.outWidth : bounds.outHeight;
+        previewBitmap = BitmapLoader.loadExifThumbnail(exif, bounds.outWidth, bounds.outHeight);
+
+        // Size the decode and the worker pool for the memory this device has right now
+        MemoryGovernor governor = MemoryGovernor.get(appContext);
+        MemoryGovernor.DecodePlan plan = governor.planDecode(bounds.outWidth, bounds.outHeight);
+        int sampleSize = plan.sampleSize;
+        Bitmap.Config config = plan.config;
+        workerThreads = MemoryGovernor.workerThreads(plan.tier);
+
+        metrics.put("memoryTier", plan.tier.name());
+        metrics.put("maxDecodeSize", MemoryGovernor.maxDecodeSize(plan.tier));
+        metrics.put("decodeBudgetLimited", plan.budgetLimited);
+        metrics.put("workerThreads", workerThreads);
+
+        executor = Executors.newFixedThreadPool(workerThreads);
+        executor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                Bitmap bitmap;
+                try {
+                    bitmap = BitmapLoader.decodeSampled(appContext, imageUri, sampleSize, config, orientation);
+                    recordDecode(sampleSize, config, start, false);
+                } catch (OutOfMemoryError e) {
+                    // Drop to the smallest settings and try once more. The plan metrics stay as
+                    // planned; the retry flag and the actual sample size and config tell the rest.
+                    governor.onLowMemory();
+                    bitmap = BitmapLoader.decodeSampled(appContext, imageUri, sampleSize * 2,
+                            Bitmap.Config.RGB_565, orientation);
+                    recordDecode(sampleSize * 2, Bitmap.Config.RGB_565, start, true);
+                }
+                fullImage.postValue(bitmap);
+            } catch (Exception | OutOfMemoryError e) {
+                loadError.postValue(e);
+            }
+        });
+    }
+
+    private void recordDecode(int sampleSize, Bitmap.Config config, long start, boolean retriedAfterOom) {
+        metrics.put("decodeSampleSize", sampleSize);
+        metrics.put("decodeRetriedAfterOom", retriedAfterOom);
+        metrics.put("bitmapConfig", config.name());
+        metrics.put("decodeMs", SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Scores, hashes and writes the crop on the background executor and posts the result, so
+     * the encode and fsync never block the UI thread. {@code cropPoints} are in the
+     * {@code quadSpaceWidth} x {@code quadSpaceHeight} space of the bitmap the crop was taken from.
+     */
+    void save(Point[] cropPoints, int quadSpaceWidth, int quadSpaceHeight, File outputFile,
+              OutputWriter writer, int duplicateThreshold, boolean dropDuplicates) {
+        if (saving) {
+            return;
+        }
+        saving = true;
+        Bitmap bitmap = croppedBitmap;
+        int rotation = rotationAngle;
+        executor.execute(() -> {
+            try {
+                saveResult.postValue(buildResult(bitmap, rotation, cropPoints, quadSpaceWidth, quadSpaceHeight,
+                        outputFile, writer, duplicateThreshold, dropDuplicates));
+            } catch (Exception | OutOfMemoryError e) {
+                e.printStackTrace();
+                saveResult.postValue(new SaveResult(null, "Error saving image: " + e.getMessage()));
+            }
+        });
+    }
+
+    /** Forgets a delivered result so that a recreated activity does not handle it again. */
+    void clearSaveResult() {
+        saving = false;
+        saveResult.setValue(null);
+    }
+
+    private SaveResult buildResult(Bitmap bitmap, int rotation, Point[] cropPoints, int quadSpaceWidth,
+                                   int quadSpaceHeight, File outputFile, OutputWriter writer,
+                                   int duplicateThreshold, boolean dropDuplicates) throws Exception {
+        // Score blur, glare and skew on a second worker while this one hashes and encodes.
+        // With a single worker it runs inline, since waiting on our own queue would deadlock.
+        Callable<CaptureQuality> analysis = () ->
+                CaptureQuality.analyze(bitmap, cropPoints, quadSpaceWidth, quadSpaceHeight);
+        Future<CaptureQuality> qualityFuture = workerThreads > 1 ? executor.submit(analysis) : null;
+
+        // Look for the same page earlier in this session before spending time on the encode
+        long hash = PerceptualHash.dHash(bitmap);
+        DuplicateIndex.Entry duplicate = duplicateThreshold >= 0
+                ? DuplicateIndex.get().findNearest(hash, duplicateThreshold) : null;
+        boolean dropDuplicate = duplicate != null && dropDuplicates;
+
+        // A failed write propagates to save(), which keeps the user on the screen to retry
+        OutputWriter.Result saved = null;
+        String resultPath = null;
+        String message;
+        if (dropDuplicate) {
+            message = "This page was already scanned";
+        } else {
+            saved = writer.write(bitmap, Bitmap.CompressFormat.JPEG, OUTPUT_QUALITY, outputFile);
+            resultPath = saved.file.getAbsolutePath();
+            DuplicateIndex.get().add(hash, resultPath);
+            message = "Image saved successfully";
+        }
+
+        CaptureQuality quality = qualityFuture != null ? awaitQuality(qualityFuture) : analysis.call();
+
+        // Describe the output so callers do not have to open the file again
+        HashMap<String, Object> result = new HashMap<>();
+        result.put("imagePath", resultPath);
+        if (saved != null) {
+            result.put("byteSize", saved.bytes);
+            result.put("encodeMs", saved.writeMs);
+        }
+        result.put("width", bitmap.getWidth());
+        result.put("height", bitmap.getHeight());
+        result.put("mimeType", "image/jpeg");
+        result.put("sourceQuad", toSourceQuad(cropPoints, quadSpaceWidth, quadSpaceHeight));
+        result.put("sourceWidth", sourceWidth);
+        result.put("sourceHeight", sourceHeight);
+        result.put("rotation", rotation);
+        result.put("quality", quality.toMap());
+
+        HashMap<String, Object> resultMetrics = new HashMap<>(metrics);
+        if (saved != null) {
+            resultMetrics.put("writeMs", saved.writeMs);
+            resultMetrics.put("writeBytesPerSecond", saved.bytesPerSecond());
+        }
+        result.put("metrics", resultMetrics);
+        result.put("perceptualHash", PerceptualHash.toHex(hash));
+        if (duplicate != null) {
+            result.put("duplicateOf", duplicate.imagePath);
+            result.put("duplicateDistance", duplicate.distance);
+            result.put("duplicateDropped", dropDuplicate);
+        }
+        return new SaveResult(result, message);
+    }
+
+    private static CaptureQuality awaitQuality(Future<CaptureQuality> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // Surface what actually went wrong in the analysis
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // Crop corners as a flat x0, y0, x1, y1... list in upright source image pixels
+    private ArrayList<Integer> toSourceQuad(Point[] cropPoints, int quadSpaceWidth, int quadSpaceHeight) {
+        ArrayList<Integer> quad = new ArrayList<>();
+        if (cropPoints == null || quadSpaceWidth <= 0 || quadSpaceHeight <= 0) {
+            return quad;
+        }
+        for (Point point : cropPoints) {
+            quad.add(Math.round((float) point.x / quadSpaceWidth * sourceWidth));
+            quad.add(Math.round((float) point.y / quadSpaceHeight * sourceHeight));
+        }
+        return quad;
+    }
+
+    /**
+     * Writes the lightweight part of the state (no bitmaps) for restoring after process death.
+     * The image path itself survives in the activity's intent.
+     */
+    void saveState(Bundle outState) {
+        outState.putFloatArray(KEY_CROP_POINTS, cropPoints);
+        outState.putInt(KEY_ROTATION, rotationAngle);
+        outState.putBoolean(KEY_CROPPED, isCropped);
+    }
+
+    void restoreState(Bundle savedState) {
+        cropPoints = savedState.getFloatArray(KEY_CROP_POINTS);
+        rotationAngle = savedState.getInt(KEY_ROTATION, 0);
+        isCropped = savedState.getBoolean(KEY_CROPPED, false);
+        // Saved corners must win over a fresh edge detection
+        cornersAdjusted = cropPoints != null;
+    }
+
+    static float[] normalizePoints(Point[] points, Bitmap bitmap) {
+        if (points == null || bitmap == null) {
+            return null;
+        }
+        float[] normalized = new float[points.length * 2];
+        for (int i = 0; i < points.length; i++) {
+            normalized[i * 2] = (float) points[i].x / bitmap.getWidth();
+            normalized[i * 2 + 1] = (float) points[i].y / bitmap.getHeight();
+        }
+        return normalized;
+    }
+
+    static Point[] denormalizePoints(float[] normalized, Bitmap bitmap) {
+        if (normalized == null || bitmap == null) {
+            return null;
+        }
+        Point[] points = new Point[normalized.length / 2];
+        for (int i = 0; i < points.length; i++) {
+            int x = Math.round(normalized[i * 2] * bitmap.getWidth());
+            int y = Math.round(normalized[i * 2 + 1] * bitmap.getHeight());
+            points[i] = new Point(
+                    Math.max(0, Math.min(x, bitmap.getWidth() - 1)),
+                    Math.max(0, Math.min(y, bitmap.getHeight() - 1)));
+        }
+        return points;
+    }
+
+    @Override
+    protected void onCleared() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
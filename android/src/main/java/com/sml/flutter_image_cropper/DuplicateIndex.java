@@ -0,0 +1,67 @@
+package com.sml.flutter_image_cropper;
+
+import java.util.ArrayDeque;
+
+/**
+ * Perceptual hashes of the images cropped in the current session, used to spot the same page
+ * being scanned twice. Bounded: once full, the oldest entry is forgotten first. Cleared from
+ * Dart between batches.
+ */
+final class DuplicateIndex {
+
+    static final int CAPACITY = 256;
+
+    // Default Hamming distance at or below which two dHashes count as the same page
+    static final int DEFAULT_THRESHOLD = 10;
+
+    private static final DuplicateIndex instance = new DuplicateIndex();
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    static final class Entry {
+        final long hash;
+        final String imagePath;
+        final int distance;
+
+        Entry(long hash, String imagePath, int distance) {
+            this.hash = hash;
+            this.imagePath = imagePath;
+            this.distance = distance;
+        }
+    }
+
+    private DuplicateIndex() {
+    }
+
+    static DuplicateIndex get() {
+        return instance;
+    }
+
+    /**
+     * Returns the closest earlier image within {@code threshold} bits of {@code hash}, with its
+     * distance filled in, or null when there is none.
+     */
+    synchronized Entry findNearest(long hash, int threshold) {
+        Entry nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (Entry entry : entries) {
+            int distance = PerceptualHash.distance(hash, entry.hash);
+            if (distance <= threshold && distance < nearestDistance) {
+                nearest = entry;
+                nearestDistance = distance;
+            }
+        }
+        return nearest != null ? new Entry(nearest.hash, nearest.imagePath, nearestDistance) : null;
+    }
+
+    synchronized void add(long hash, String imagePath) {
+        if (entries.size() >= CAPACITY) {
+            entries.removeFirst();
+        }
+        entries.addLast(new Entry(hash, imagePath, 0));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
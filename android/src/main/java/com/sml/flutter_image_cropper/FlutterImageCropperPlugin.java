@@ -5,6 +5,10 @@ import android.content.Intent;
 
 import androidx.annotation.NonNull;
 
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
@@ -89,6 +93,8 @@ public class FlutterImageCropperPlugin implements FlutterPlugin, MethodCallHandl
             try {
                 Intent intent = new Intent(activity, CropperActivity.class);
                 intent.putExtra("imagePath", imagePath);
+                putDuplicateOptions(call, intent);
+                putWriterOptions(call, intent);
                 activity.startActivityForResult(intent, CROP_IMAGE_REQUEST_CODE);
             } catch (Exception e) {
                 pendingResult.error("ACTIVITY_START_ERROR",
@@ -116,17 +122,52 @@ public class FlutterImageCropperPlugin implements FlutterPlugin, MethodCallHandl
             // Launch the CameraActivity
             try {
                 Intent intent = new Intent(activity, CameraActivity.class);
+                Double minSharpness = call.argument("minSharpness");
+                if (minSharpness != null) {
+                    intent.putExtra("minSharpness", minSharpness.doubleValue());
+                }
+                Double maxGlareFraction = call.argument("maxGlareFraction");
+                if (maxGlareFraction != null) {
+                    intent.putExtra("maxGlareFraction", maxGlareFraction.doubleValue());
+                }
+                putDuplicateOptions(call, intent);
+                putWriterOptions(call, intent);
                 activity.startActivityForResult(intent, CAMERA_IMAGE_REQUEST_CODE);
             } catch (Exception e) {
                 pendingResult.error("ACTIVITY_START_ERROR",
                         "Failed to start camera activity: " + e.getMessage(), null);
                 pendingResult = null;
             }
+        } else if (call.method.equals("clearDuplicateIndex")) {
+            DuplicateIndex.get().clear();
+            result.success(null);
         } else {
             result.notImplemented();
         }
     }
 
+    private void putDuplicateOptions(MethodCall call, Intent intent) {
+        Integer duplicateThreshold = call.argument("duplicateThreshold");
+        if (duplicateThreshold != null) {
+            intent.putExtra("duplicateThreshold", duplicateThreshold.intValue());
+        }
+        Boolean dropDuplicates = call.argument("dropDuplicates");
+        if (dropDuplicates != null) {
+            intent.putExtra("dropDuplicates", dropDuplicates.booleanValue());
+        }
+    }
+
+    private void putWriterOptions(MethodCall call, Intent intent) {
+        Integer writeBufferSize = call.argument("writeBufferSize");
+        if (writeBufferSize != null) {
+            intent.putExtra("writeBufferSize", writeBufferSize.intValue());
+        }
+        Boolean fsync = call.argument("fsync");
+        if (fsync != null) {
+            intent.putExtra("fsync", fsync.booleanValue());
+        }
+    }
+
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
@@ -161,8 +202,7 @@ public class FlutterImageCropperPlugin implements FlutterPlugin, MethodCallHandl
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
         if ((requestCode == CROP_IMAGE_REQUEST_CODE || requestCode == CAMERA_IMAGE_REQUEST_CODE) && pendingResult != null) {
             if (resultCode == Activity.RESULT_OK && data != null) {
-                String croppedImagePath = data.getStringExtra("imagePath");
-                pendingResult.success(croppedImagePath);
+                pendingResult.success(buildResultMap(data));
             } else {
                 pendingResult.success(null); // Cancelled or error
             }
@@ -172,6 +212,19 @@ public class FlutterImageCropperPlugin implements FlutterPlugin, MethodCallHandl
         return false;
     }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> buildResultMap(Intent data) {
+        // The cropper describes its output in a single map; fall back to the bare path
+        Serializable payload = data.getSerializableExtra("result");
+        if (payload instanceof Map) {
+            return (Map<String, Object>) payload;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("imagePath", data.getStringExtra("imagePath"));
+        return result;
+    }
+
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         if (requestCode == 1001 || requestCode == 1002) {
             if (grantResults.length > 0 && grantResults[0] == android.content.pm.PackageManager.PERMISSION_GRANTED) {
@@ -0,0 +1,171 @@
+package com.sml.flutter_image_cropper;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Plans decodes against the memory that is actually available: the full image is decoded
+ * whenever it fits the budget, and only low-RAM devices or recent onTrimMemory/onLowMemory
+ * signals lower the size cap. One instance is shared by the whole process so both activities
+ * see the same memory pressure.
+ */
+final class MemoryGovernor {
+
+    enum Tier {
+        LOW, MEDIUM, HIGH
+    }
+
+    static final class DecodePlan {
+        final Tier tier;
+        final int sampleSize;
+        final Bitmap.Config config;
+        final boolean budgetLimited;
+
+        DecodePlan(Tier tier, int sampleSize, Bitmap.Config config, boolean budgetLimited) {
+            this.tier = tier;
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.budgetLimited = budgetLimited;
+        }
+    }
+
+    // How long a trim signal keeps the tier lowered
+    private static final long PRESSURE_WINDOW_MS = 30_000;
+
+    // The decode shares the budget with its upright copy and the crop taken from it
+    private static final int DECODE_BUDGET_DIVISOR = 3;
+
+    // Budget limits never shrink the decode below this longest edge
+    private static final int MIN_DECODE_SIZE = 1024;
+
+    private static MemoryGovernor instance;
+
+    private final ActivityManager activityManager;
+    private final boolean lowRamDevice;
+    private volatile int trimLevel = 0;
+    private volatile long trimTime = 0;
+
+    private MemoryGovernor(Context context) {
+        activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        lowRamDevice = activityManager.isLowRamDevice();
+    }
+
+    static synchronized MemoryGovernor get(Context context) {
+        if (instance == null) {
+            instance = new MemoryGovernor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    void onTrimMemory(int level) {
+        // Going to the background alone is not memory pressure
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        trimLevel = level;
+        trimTime = SystemClock.elapsedRealtime();
+    }
+
+    void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * LOW on low-RAM devices and under critical trim pressure, MEDIUM under moderate trim
+     * pressure, HIGH otherwise. How much memory is free is handled by {@link #planDecode}.
+     */
+    Tier currentTier() {
+        if (lowRamDevice) {
+            return Tier.LOW;
+        }
+        if (SystemClock.elapsedRealtime() - trimTime < PRESSURE_WINDOW_MS) {
+            if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                return Tier.LOW;
+            } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                return Tier.MEDIUM;
+            }
+        }
+        return Tier.HIGH;
+    }
+
+    /**
+     * Picks the sample size and config for decoding a {@code width} x {@code height} image: the
+     * tier's size cap first, then RGB_565 and larger sample sizes only while the decoded bitmap
+     * would not fit the memory budget.
+     */
+    DecodePlan planDecode(int width, int height) {
+        Tier tier = currentTier();
+        int sampleSize = BitmapLoader.computeSampleSize(width, height, maxDecodeSize(tier));
+        Bitmap.Config config = bitmapConfig(tier);
+
+        long budget = availableBytes() / DECODE_BUDGET_DIVISOR;
+        boolean budgetLimited = false;
+        while (bitmapBytes(width, height, sampleSize, config) > budget) {
+            if (config != Bitmap.Config.RGB_565) {
+                config = Bitmap.Config.RGB_565;
+            } else if (Math.max(width, height) / (sampleSize * 2) >= MIN_DECODE_SIZE) {
+                sampleSize *= 2;
+            } else {
+                break;
+            }
+            budgetLimited = true;
+        }
+        return new DecodePlan(tier, sampleSize, config, budgetLimited);
+    }
+
+    /**
+     * Bitmap pixels live in the native heap from Android 8.0, so the budget there is the
+     * system's available memory above its low-memory threshold; before that it is the free
+     * Java heap.
+     */
+    private long availableBytes() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            return Math.max(0, memoryInfo.availMem - memoryInfo.threshold);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    private static long bitmapBytes(int width, int height, int sampleSize, Bitmap.Config config) {
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+        return (long) (width / sampleSize) * (height / sampleSize) * bytesPerPixel;
+    }
+
+    /**
+     * Longest decoded edge per tier. HIGH is only bounded by the canvas draw limit; the smaller
+     * caps are reserved for low-RAM devices and trim pressure.
+     */
+    static int maxDecodeSize(Tier tier) {
+        switch (tier) {
+            case LOW:
+                return 2048;
+            case MEDIUM:
+                return 3072;
+            default:
+                return BitmapLoader.MAX_DECODE_SIZE;
+        }
+    }
+
+    /**
+     * RGB_565 halves the memory of the bitmap being cropped. HARDWARE bitmaps are not an option
+     * here because edge detection and cropping read the pixels back.
+     */
+    static Bitmap.Config bitmapConfig(Tier tier) {
+        return tier == Tier.LOW ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Saving runs the quality analysis beside the hash and encode, so two workers are all the
+     * cropper can use. Low-RAM devices keep one so the analysis copy and the encode never
+     * hold memory at the same time.
+     */
+    static int workerThreads(Tier tier) {
+        return tier == Tier.LOW ? 1 : Math.min(2, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,152 @@
+package com.sml.flutter_image_cropper;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compresses bitmaps straight into a file through a buffered FileChannel. Output goes to a
+ * temporary file that is renamed over the target only once it is complete, so a failed or
+ * killed write never leaves a truncated image behind.
+ */
+final class OutputWriter {
+
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Temp files older than this belong to a write that was killed, not one still running
+    private static final long STALE_TEMP_AGE_MS = 60_000;
+
+    private final int bufferSize;
+    private final boolean fsync;
+
+    static final class Result {
+        final File file;
+        final long bytes;
+        final long writeMs;
+
+        Result(File file, long bytes, long writeMs) {
+            this.file = file;
+            this.bytes = bytes;
+            this.writeMs = writeMs;
+        }
+
+        long bytesPerSecond() {
+            return writeMs > 0 ? bytes * 1000 / writeMs : bytes * 1000;
+        }
+    }
+
+    /**
+     * @param bufferSize bytes collected before each channel write
+     * @param fsync      whether to force the data to storage before the rename, trading
+     *                   write time for durability across power loss
+     */
+    OutputWriter(int bufferSize, boolean fsync) {
+        this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+        this.fsync = fsync;
+    }
+
+    Result write(Bitmap bitmap, Bitmap.CompressFormat format, int quality, File target) throws IOException {
+        File dir = target.getParentFile();
+        deleteStaleTempFiles(dir);
+
+        long start = SystemClock.elapsedRealtime();
+        File temp = new File(dir, target.getName() + TEMP_SUFFIX);
+
+        long bytes;
+        try (FileOutputStream fileStream = new FileOutputStream(temp)) {
+            FileChannel channel = fileStream.getChannel();
+            ChannelOutputStream out = new ChannelOutputStream(channel, bufferSize);
+            if (!bitmap.compress(format, quality, out)) {
+                throw new IOException("Failed to encode image");
+            }
+            out.flush();
+            if (fsync) {
+                channel.force(true);
+            }
+            bytes = channel.size();
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+
+        // Same directory, so the rename is atomic: readers see the old file or the complete new one
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to move " + temp + " to " + target);
+        }
+
+        return new Result(target, bytes, SystemClock.elapsedRealtime() - start);
+    }
+
+    // A process killed mid-write never gets to delete its temp file, so clean up after it here
+    private static void deleteStaleTempFiles(File dir) {
+        File[] stale = dir != null ? dir.listFiles((d, name) -> name.endsWith(TEMP_SUFFIX)) : null;
+        if (stale == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - STALE_TEMP_AGE_MS;
+        for (File file : stale) {
+            if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    // Collects the encoder's small writes into one direct buffer and hands it to the channel when full
+    private static final class ChannelOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        ChannelOutputStream(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                drain();
+            }
+            if (len > buffer.capacity()) {
+                // Too large to be worth copying, write it through
+                writeFully(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+}
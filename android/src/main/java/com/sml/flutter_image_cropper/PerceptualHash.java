@@ -0,0 +1,58 @@
+package com.sml.flutter_image_cropper;
+
+import android.graphics.Bitmap;
+
+/**
+ * 64-bit difference hash (dHash): the image is reduced to a 9x8 grayscale grid and each bit
+ * records whether a cell is darker than its right neighbour. Re-encoded, slightly shifted or
+ * re-lit copies of the same scan end up a few bits apart.
+ */
+final class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    // Each grid cell averages a block of this many pixels per side, which avoids aliasing
+    private static final int BLOCK_SIZE = 8;
+
+    private PerceptualHash() {
+    }
+
+    static long dHash(Bitmap bitmap) {
+        int width = GRID_WIDTH * BLOCK_SIZE;
+        int height = GRID_HEIGHT * BLOCK_SIZE;
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        small.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (small != bitmap) {
+            small.recycle();
+        }
+
+        // Average the luma of each block into the grid
+        int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int row = (y / BLOCK_SIZE) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int p = pixels[y * width + x];
+                grid[row + x / BLOCK_SIZE] += ((p >> 16) & 0xff) * 77 + ((p >> 8) & 0xff) * 150 + (p & 0xff) * 29;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int i = y * GRID_WIDTH + x;
+                hash = (hash << 1) | (grid[i] < grid[i + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    static String toHex(long hash) {
+        return String.format("%016x", hash);
+    }
+}
@@ -1,6 +1,159 @@
 import 'dart:async';
+import 'dart:math';
+
 import 'package:flutter/services.dart';
 
+/// Capture-quality scores computed natively on a downsampled copy of the crop.
+class CaptureQuality {
+  /// Variance of the Laplacian; lower values mean a blurrier image.
+  final double sharpness;
+
+  /// Fraction of pixels (0-1) that are blown out by glare.
+  final double glareFraction;
+
+  /// Largest deviation of a crop corner from 90 degrees, if a crop quad was known.
+  final double? skewDegrees;
+
+  /// Area of the crop quad relative to the whole image, if a crop quad was known.
+  final double? areaRatio;
+
+  /// Time spent computing these scores, in milliseconds.
+  final int analysisMs;
+
+  const CaptureQuality({
+    required this.sharpness,
+    required this.glareFraction,
+    this.skewDegrees,
+    this.areaRatio,
+    required this.analysisMs,
+  });
+
+  factory CaptureQuality.fromMap(Map<dynamic, dynamic> map) {
+    return CaptureQuality(
+      sharpness: (map['sharpness'] as num).toDouble(),
+      glareFraction: (map['glareFraction'] as num).toDouble(),
+      skewDegrees: (map['skewDegrees'] as num?)?.toDouble(),
+      areaRatio: (map['areaRatio'] as num?)?.toDouble(),
+      analysisMs: (map['analysisMs'] as num).toInt(),
+    );
+  }
+}
+
+/// The outcome of a crop: the saved image, how it was produced and how good
+/// the capture looks.
+class CropResult {
+  /// Path to the cropped image.
+  final String? imagePath;
+
+  /// `content://` URI of the cropped image from the plugin's FileProvider,
+  /// suitable for sharing with other apps.
+  final String? uri;
+
+  /// Width of the cropped image in pixels.
+  final int? width;
+
+  /// Height of the cropped image in pixels.
+  final int? height;
+
+  /// Size of the saved file in bytes.
+  final int? byteSize;
+
+  /// MIME type of the saved file.
+  final String? mimeType;
+
+  /// Crop corners in the upright source image, clockwise from the top left.
+  final List<Point<int>> sourceQuad;
+
+  /// Width of the upright source image that [sourceQuad] refers to.
+  final int? sourceWidth;
+
+  /// Height of the upright source image that [sourceQuad] refers to.
+  final int? sourceHeight;
+
+  /// Rotation in degrees the user applied after cropping.
+  final int rotation;
+
+  /// Time spent encoding and saving the image, in milliseconds.
+  final int? encodeMs;
+
+  /// Quality scores of the cropped image, when available.
+  final CaptureQuality? quality;
+
+  /// Pipeline metrics, such as the memory tier and decode settings that were used.
+  final Map<String, Object?> metrics;
+
+  /// 64-bit difference hash of the cropped image, as 16 hex digits.
+  final String? perceptualHash;
+
+  /// Path of an earlier image from this session that looks like the same page.
+  final String? duplicateOf;
+
+  /// Hamming distance between this image's hash and [duplicateOf]'s.
+  final int? duplicateDistance;
+
+  /// Whether the image was not saved because it duplicates [duplicateOf].
+  final bool duplicateDropped;
+
+  /// Whether this image looks like one already cropped in this session.
+  bool get isDuplicate => duplicateOf != null;
+
+  const CropResult({
+    this.imagePath,
+    this.uri,
+    this.width,
+    this.height,
+    this.byteSize,
+    this.mimeType,
+    this.sourceQuad = const [],
+    this.sourceWidth,
+    this.sourceHeight,
+    this.rotation = 0,
+    this.encodeMs,
+    this.quality,
+    this.metrics = const {},
+    this.perceptualHash,
+    this.duplicateOf,
+    this.duplicateDistance,
+    this.duplicateDropped = false,
+  });
+
+  factory CropResult.fromMap(Map<dynamic, dynamic> map) {
+    final quality = map['quality'];
+    final metrics = map['metrics'];
+    final quad = map['sourceQuad'];
+    final List<Point<int>> sourceQuad = [];
+    if (quad is List) {
+      for (int i = 0; i + 1 < quad.length; i += 2) {
+        sourceQuad.add(Point<int>(
+          (quad[i] as num).toInt(),
+          (quad[i + 1] as num).toInt(),
+        ));
+      }
+    }
+    return CropResult(
+      imagePath: map['imagePath'] as String?,
+      uri: map['uri'] as String?,
+      width: (map['width'] as num?)?.toInt(),
+      height: (map['height'] as num?)?.toInt(),
+      byteSize: (map['byteSize'] as num?)?.toInt(),
+      mimeType: map['mimeType'] as String?,
+      sourceQuad: sourceQuad,
+      sourceWidth: (map['sourceWidth'] as num?)?.toInt(),
+      sourceHeight: (map['sourceHeight'] as num?)?.toInt(),
+      rotation: (map['rotation'] as num?)?.toInt() ?? 0,
+      encodeMs: (map['encodeMs'] as num?)?.toInt(),
+      quality: quality is Map ? CaptureQuality.fromMap(quality) : null,
+      metrics: metrics is Map
+          ? Map<String, Object?>.from(metrics)
+          : const <String, Object?>{},
+      perceptualHash: map['perceptualHash'] as String?,
+      duplicateOf: map['duplicateOf'] as String?,
+      duplicateDistance: (map['duplicateDistance'] as num?)?.toInt(),
+      duplicateDropped: map['duplicateDropped'] as bool? ?? false,
+    );
+  }
+}
+
 class FlutterImageCropper {
   static const MethodChannel _channel = MethodChannel('flutter_image_cropper');
 
@@ -8,13 +161,61 @@ class FlutterImageCropper {
   ///
   /// [imagePath] is the path to the image to be cropped.
   ///
+  /// See [cropImageForResult] for [duplicateThreshold], [dropDuplicates],
+  /// [writeBufferSize] and [fsync].
+  ///
   /// Returns the path to the cropped image, or null if the operation was canceled.
-  static Future<String?> cropImage(String imagePath) async {
+  static Future<String?> cropImage(
+    String imagePath, {
+    int? duplicateThreshold,
+    bool dropDuplicates = false,
+    int? writeBufferSize,
+    bool fsync = false,
+  }) async {
+    final CropResult? result = await cropImageForResult(
+      imagePath,
+      duplicateThreshold: duplicateThreshold,
+      dropDuplicates: dropDuplicates,
+      writeBufferSize: writeBufferSize,
+      fsync: fsync,
+    );
+    return result?.imagePath;
+  }
+
+  /// Launches the native image cropper UI.
+  ///
+  /// [imagePath] is the path to the image to be cropped.
+  ///
+  /// Each crop is compared with the ones before it in this session. An image
+  /// within [duplicateThreshold] bits (out of 64, default 10, negative to
+  /// disable) of an earlier one is flagged as a duplicate, and with
+  /// [dropDuplicates] it is not saved at all. Call [clearDuplicateIndex] to
+  /// start a new batch.
+  ///
+  /// The image is written to the app's pictures directory through a buffer of
+  /// [writeBufferSize] bytes (256 KiB by default) and only appears under its
+  /// final name once complete. With [fsync] the data is also forced to storage
+  /// before that, which is slower but survives a power loss.
+  ///
+  /// Returns the cropped image with its size, crop corners, rotation and
+  /// quality scores, or null if the operation was canceled.
+  static Future<CropResult?> cropImageForResult(
+    String imagePath, {
+    int? duplicateThreshold,
+    bool dropDuplicates = false,
+    int? writeBufferSize,
+    bool fsync = false,
+  }) async {
     try {
-      final String? result = await _channel.invokeMethod('cropImage', {
+      final Map<dynamic, dynamic>? result =
+          await _channel.invokeMethod('cropImage', {
         'imagePath': imagePath,
+        if (duplicateThreshold != null) 'duplicateThreshold': duplicateThreshold,
+        'dropDuplicates': dropDuplicates,
+        if (writeBufferSize != null) 'writeBufferSize': writeBufferSize,
+        'fsync': fsync,
       });
-      return result;
+      return result != null ? CropResult.fromMap(result) : null;
     } on PlatformException catch (e) {
       print('Error cropping image: ${e.message}');
       return null;
@@ -23,14 +224,74 @@ class FlutterImageCropper {
 
   /// Launches the native camera UI to take a picture and then crops it.
   ///
+  /// If [minSharpness] or [maxGlareFraction] is given, a capture that falls
+  /// outside these limits prompts the user to retake it before cropping. The
+  /// limits are checked against the automatically detected page, scored the
+  /// same way as [CropResult.quality].
+  ///
+  /// See [cropImageForResult] for [duplicateThreshold], [dropDuplicates],
+  /// [writeBufferSize] and [fsync].
+  ///
   /// Returns the path to the cropped image, or null if the operation was canceled.
-  static Future<String?> takePictureAndCrop() async {
+  static Future<String?> takePictureAndCrop({
+    double? minSharpness,
+    double? maxGlareFraction,
+    int? duplicateThreshold,
+    bool dropDuplicates = false,
+    int? writeBufferSize,
+    bool fsync = false,
+  }) async {
+    final CropResult? result = await takePictureAndCropForResult(
+      minSharpness: minSharpness,
+      maxGlareFraction: maxGlareFraction,
+      duplicateThreshold: duplicateThreshold,
+      dropDuplicates: dropDuplicates,
+      writeBufferSize: writeBufferSize,
+      fsync: fsync,
+    );
+    return result?.imagePath;
+  }
+
+  /// Launches the native camera UI to take a picture and then crops it.
+  ///
+  /// If [minSharpness] or [maxGlareFraction] is given, a capture that falls
+  /// outside these limits prompts the user to retake it before cropping. The
+  /// limits are checked against the automatically detected page, scored the
+  /// same way as [CropResult.quality].
+  ///
+  /// See [cropImageForResult] for [duplicateThreshold], [dropDuplicates],
+  /// [writeBufferSize] and [fsync].
+  ///
+  /// Returns the cropped image with its size, crop corners, rotation and
+  /// quality scores, or null if the operation was canceled.
+  static Future<CropResult?> takePictureAndCropForResult({
+    double? minSharpness,
+    double? maxGlareFraction,
+    int? duplicateThreshold,
+    bool dropDuplicates = false,
+    int? writeBufferSize,
+    bool fsync = false,
+  }) async {
     try {
-      final String? result = await _channel.invokeMethod('takePictureAndCrop');
-      return result;
+      final Map<dynamic, dynamic>? result =
+          await _channel.invokeMethod('takePictureAndCrop', {
+        if (minSharpness != null) 'minSharpness': minSharpness,
+        if (maxGlareFraction != null) 'maxGlareFraction': maxGlareFraction,
+        if (duplicateThreshold != null) 'duplicateThreshold': duplicateThreshold,
+        'dropDuplicates': dropDuplicates,
+        if (writeBufferSize != null) 'writeBufferSize': writeBufferSize,
+        'fsync': fsync,
+      });
+      return result != null ? CropResult.fromMap(result) : null;
     } on PlatformException catch (e) {
       print('Error taking picture and cropping: ${e.message}');
       return null;
     }
   }
+
+  /// Forgets the images cropped so far, so duplicate detection starts over
+  /// for a new batch.
+  static Future<void> clearDuplicateIndex() async {
+    await _channel.invokeMethod('clearDuplicateIndex');
+  }
 }